@@ -0,0 +1,61 @@
+// BenchmarkStatusServlet.java
+//   StatusServlet wired to a synthetic MBeanServer and stub Sakai components
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.management.MBeanServer;
+
+@SuppressWarnings("serial")
+public class BenchmarkStatusServlet extends StatusServlet
+{
+	private final MBeanServer syntheticServer;
+	private final Map<String,Object> components;
+
+	public BenchmarkStatusServlet(MBeanServer syntheticServer, Map<String,Object> components)
+	{
+		this.syntheticServer = syntheticServer;
+		this.components = components;
+	}
+
+	// "mbeans" each of ThreadPool, WebModule and RequestProcessor beans;
+	// "config" stands in for sakai.properties
+	public static BenchmarkStatusServlet create(int mbeans, int sessions, int caches, Properties config) throws Exception
+	{
+		return new BenchmarkStatusServlet(SyntheticMBean.createServer(mbeans),
+				StubComponents.create(sessions, caches, config));
+	}
+
+	// Stops the stream, saturation and health threads that init() starts,
+	// so they do not compete with the code being measured. What the
+	// saturation sampler has recorded so far is kept.
+	public void stopBackgroundThreads()
+	{
+		metricStream.stop();
+		threadPoolSaturation.stop();
+		healthMonitor.stop();
+	}
+
+	protected MBeanServer findMBeanServer()
+	{
+		return syntheticServer;
+	}
+
+	protected Object getComponent(String name)
+	{
+		return components.get(name);
+	}
+
+	protected Set<String> getComponentNames()
+	{
+		return new TreeSet<>(components.keySet());
+	}
+}
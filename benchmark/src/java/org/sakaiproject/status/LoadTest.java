@@ -0,0 +1,215 @@
+// LoadTest.java
+//   Runs the servlet in embedded Tomcat and measures endpoint latency and
+//   throughput under concurrent pollers
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+// Settings are system properties, eg:
+//
+//   java -Dpollers=32 -Dduration=60 -Dendpoints=/health,/sakai/database \
+//        -cp target/benchmarks.jar org.sakaiproject.status.LoadTest
+//
+// Besides the servlet under test at /sakai-status, "peers" more instances
+// are deployed at /peer-1, /peer-2, ... and configured as its cluster, so
+// the /cluster endpoints run against local stub peers.
+public class LoadTest
+{
+	static final String DEFAULT_ENDPOINTS =
+			"/health,/system/memory,/system/metrics,/sakai/database,/sakai/sessions," +
+			"/sakai/sessions/counts,/tomcat/threads,/tomcat/threads/saturation,/cluster/summary";
+
+	public static void main(String[] args) throws Exception
+	{
+		int port = Integer.getInteger("port", 18080);
+		int pollers = Integer.getInteger("pollers", 16);
+		int warmup = Integer.getInteger("warmup", 5);
+		int duration = Integer.getInteger("duration", 30);
+		int peers = Integer.getInteger("peers", 3);
+		int mbeans = Integer.getInteger("mbeans", 1000);
+		int sessions = Integer.getInteger("sessions", 5000);
+		int caches = Integer.getInteger("caches", 200);
+		List<String> endpoints = Arrays.asList(System.getProperty("endpoints", DEFAULT_ENDPOINTS).split(","));
+
+		String baseDir = Files.createTempDirectory("sakai-status-loadtest").toString();
+		Tomcat tomcat = new Tomcat();
+		tomcat.setPort(port);
+		tomcat.setBaseDir(baseDir);
+
+		StringBuilder peerUrls = new StringBuilder();
+		for(int i = 1; i <= peers; i++) {
+			deploy(tomcat, baseDir, "/peer-" + i, BenchmarkStatusServlet.create(mbeans, sessions, caches, new Properties()));
+			peerUrls.append((i > 1) ? "," : "").append("peer-" + i + "=http://localhost:" + port + "/peer-" + i);
+		}
+		Properties config = new Properties();
+		config.setProperty("status.cluster.peers", peerUrls.toString());
+		deploy(tomcat, baseDir, "/sakai-status", BenchmarkStatusServlet.create(mbeans, sessions, caches, config));
+
+		tomcat.getConnector();
+		tomcat.start();
+		try {
+			String base = "http://localhost:" + port + "/sakai-status";
+			System.out.println("warming up for " + warmup + "s with " + pollers + " pollers");
+			poll(base, endpoints, pollers, warmup);
+			System.out.println("measuring for " + duration + "s");
+			Map<String,Latencies> results = poll(base, endpoints, pollers, duration);
+
+			// endpoint,requests,errors,requests-per-second,p50-ms,p95-ms,p99-ms,max-ms
+			System.out.println("endpoint,requests,errors,requests-per-second,p50-ms,p95-ms,p99-ms,max-ms");
+			for(Map.Entry<String,Latencies> entry : results.entrySet()) {
+				Latencies latencies = entry.getValue();
+				latencies.sort();
+				System.out.println(entry.getKey() + "," +
+						latencies.size + "," +
+						latencies.errors + "," +
+						String.format("%.1f", (double) latencies.size / duration) + "," +
+						millis(latencies.percentile(0.50)) + "," +
+						millis(latencies.percentile(0.95)) + "," +
+						millis(latencies.percentile(0.99)) + "," +
+						millis(latencies.percentile(1.0)));
+			}
+		}
+		finally {
+			tomcat.stop();
+			tomcat.destroy();
+		}
+		System.exit(0);
+	}
+
+	private static void deploy(Tomcat tomcat, String baseDir, String path, StatusServlet servlet)
+	{
+		Context context = tomcat.addContext(path, baseDir);
+		Wrapper wrapper = Tomcat.addServlet(context, "server-status", servlet);
+		wrapper.setAsyncSupported(true);
+		wrapper.setLoadOnStartup(1);
+		context.addServletMappingDecoded("/", "server-status");
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format("%.2f", nanos / 1000000.0);
+	}
+
+	// each poller cycles through the endpoints, starting at a different one,
+	// for the given number of seconds; returns latencies by endpoint
+	private static Map<String,Latencies> poll(String base, List<String> endpoints, int pollers, int seconds) throws Exception
+	{
+		long deadline = System.nanoTime() + seconds * 1000000000L;
+		ExecutorService executor = Executors.newFixedThreadPool(pollers);
+		List<Future<Map<String,Latencies>>> futures = new ArrayList<>();
+		for(int p = 0; p < pollers; p++) {
+			final int offset = p;
+			futures.add(executor.submit(() -> {
+				Map<String,Latencies> mine = new LinkedHashMap<>();
+				for(String endpoint : endpoints) {
+					mine.put(endpoint, new Latencies());
+				}
+				byte[] buffer = new byte[8192];
+				for(int i = offset; System.nanoTime() < deadline; i++) {
+					String endpoint = endpoints.get(i % endpoints.size());
+					long start = System.nanoTime();
+					boolean ok = get(base + endpoint, buffer);
+					mine.get(endpoint).add(System.nanoTime() - start, ok);
+				}
+				return mine;
+			}));
+		}
+
+		Map<String,Latencies> merged = new LinkedHashMap<>();
+		for(String endpoint : endpoints) {
+			merged.put(endpoint, new Latencies());
+		}
+		for(Future<Map<String,Latencies>> future : futures) {
+			for(Map.Entry<String,Latencies> entry : future.get().entrySet()) {
+				merged.get(entry.getKey()).addAll(entry.getValue());
+			}
+		}
+		executor.shutdown();
+		return merged;
+	}
+
+	// reads the whole response so the connection can be kept alive
+	private static boolean get(String url, byte[] buffer)
+	{
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			int status = connection.getResponseCode();
+			InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+			if(in != null) {
+				try {
+					while(in.read(buffer) != -1) {
+						// discard
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+			return status == HttpURLConnection.HTTP_OK;
+		}
+		catch(IOException e) {
+			return false;
+		}
+	}
+
+	private static class Latencies
+	{
+		long[] nanos = new long[1024];
+		int size = 0;
+		int errors = 0;
+
+		void add(long latency, boolean ok)
+		{
+			if(size == nanos.length) {
+				nanos = Arrays.copyOf(nanos, size * 2);
+			}
+			nanos[size++] = latency;
+			if(!ok) {
+				errors++;
+			}
+		}
+
+		void addAll(Latencies other)
+		{
+			for(int i = 0; i < other.size; i++) {
+				add(other.nanos[i], true);
+			}
+			errors += other.errors;
+		}
+
+		void sort()
+		{
+			Arrays.sort(nanos, 0, size);
+		}
+
+		long percentile(double fraction)
+		{
+			if(size == 0) {
+				return 0;
+			}
+			return nanos[(int) Math.min(size - 1, Math.ceil(fraction * size) - 1)];
+		}
+	}
+}
@@ -0,0 +1,128 @@
+// ReportBenchmark.java
+//   JMH benchmarks for each report method and the background samplers
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.CharArrayWriter;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Not covered here: /system/heap/histogram (rate limited, and each run
+// forces a full GC), /system/jfr/* (controls a JVM-wide recording) and
+// /cluster/* (network bound). The load test exercises /cluster/summary
+// against stub peers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark
+{
+	// ThreadPool, WebModule and RequestProcessor beans, each
+	@Param({ "10", "1000" })
+	public int mbeans;
+
+	@Param({ "100", "5000" })
+	public int sessions;
+
+	@Param({ "200" })
+	public int caches;
+
+	private BenchmarkStatusServlet servlet;
+	private final CharArrayWriter out = new CharArrayWriter(64 * 1024);
+	private final PrintWriter pw = new PrintWriter(out);
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		servlet = BenchmarkStatusServlet.create(mbeans, sessions, caches, new Properties());
+		servlet.init();
+		// give the saturation sampler a few samples to report, then stop it
+		// and the other background threads
+		Thread.sleep(1000);
+		servlet.stopBackgroundThreads();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		servlet.destroy();
+	}
+
+	// returns the output size so the work cannot be optimized away
+	private int run(Consumer<PrintWriter> report)
+	{
+		out.reset();
+		report.accept(pw);
+		pw.flush();
+		return out.size();
+	}
+
+	@Benchmark public int threadPoolStatus() { return run(servlet::reportThreadPoolStatus); }
+	@Benchmark public int threadPoolSaturation() { return run(servlet::reportThreadPoolSaturation); }
+	@Benchmark public int threadGroups() { return run(servlet::reportThreadGroups); }
+	@Benchmark public int threadDetails() { return run(servlet::reportThreadDetails); }
+	@Benchmark public int threadStackTraces() { return run(servlet::reportThreadStackTraces); }
+	@Benchmark public int webappStatus() { return run(servlet::reportWebappStatus); }
+	@Benchmark public int detailedWebappStatus() { return run(servlet::reportDetailedWebappStatus); }
+	@Benchmark public int currentURIs() { return run(servlet::reportCurrentURIs); }
+	@Benchmark public int allMBeans() { return run(servlet::reportAllMBeans); }
+	@Benchmark public int allMBeanDetails() { return run(servlet::reportAllMBeanDetails); }
+	@Benchmark public int mbeanDomains() { return run(servlet::reportMBeanDomains); }
+	@Benchmark public int memoryStatus() { return run(servlet::reportMemoryStatus); }
+	@Benchmark public int metrics() { return run(servlet::reportMetrics); }
+	@Benchmark public int systemProperties() { return run(servlet::reportSystemProperties); }
+	@Benchmark public int sakaiDatabaseStatus() { return run(servlet::reportSakaiDatabaseStatus); }
+	@Benchmark public int sakaiBeans() { return run(servlet::reportSakaiBeans); }
+	@Benchmark public int activeSessionCounts() { return run(servlet::reportActiveSessionCounts); }
+	@Benchmark public int allSessionCounts() { return run(servlet::reportAllSessionCounts); }
+	@Benchmark public int allSessionTotal() { return run(servlet::reportAllSessionTotal); }
+	@Benchmark public int usersByServer() { return run(servlet::reportUsersByServer); }
+	@Benchmark public int allUsers() { return run(servlet::reportAllUsers); }
+	@Benchmark public int sakaiProperties() { return run(servlet::reportSakaiProperties); }
+	@Benchmark public int allTools() { return run(servlet::reportAllTools); }
+	@Benchmark public int toolDetails() { return run(w -> servlet.reportToolDetails("sakai.tool1", w)); }
+	@Benchmark public int allFunctions() { return run(servlet::reportAllFunctions); }
+	@Benchmark public int cacheList() { return run(servlet::reportCacheList); }
+	@Benchmark public int cacheDetails() { return run(w -> servlet.reportCacheDetails("org.sakaiproject.stub.Cache1", w)); }
+
+	// what the /stream and /health threads pay on every sample
+	@Benchmark
+	public int streamSample()
+	{
+		Map<String,Long> metrics = new TreeMap<>();
+		servlet.collectMetrics(metrics);
+		return metrics.size();
+	}
+
+	@Benchmark
+	public int healthSample()
+	{
+		Map<String,Long> metrics = new TreeMap<>();
+		servlet.collectHealthMetrics(metrics);
+		return metrics.size();
+	}
+}
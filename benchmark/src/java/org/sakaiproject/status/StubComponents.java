@@ -0,0 +1,218 @@
+// StubComponents.java
+//   Stand-ins for the Sakai components the servlet looks up
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.sakaiproject.authz.api.FunctionManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.event.api.UsageSession;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.tool.api.Tool;
+import org.sakaiproject.tool.api.ToolManager;
+import org.sakaiproject.user.api.User;
+import org.sakaiproject.user.api.UserDirectoryService;
+import org.sakaiproject.util.SakaiProperties;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+// The Sakai service interfaces are large and change between releases, so
+// the stubs are dynamic proxies that implement only the methods the servlet
+// calls. Any other method returns null, zero or false.
+public class StubComponents
+{
+	static final int SERVERS = 4;
+
+	// component name -> stand-in, keyed as the servlet looks them up
+	public static Map<String,Object> create(int sessions, int caches, Properties config)
+	{
+		Map<String,Object> components = new HashMap<>();
+		components.put("javax.sql.DataSource", new BasicDataSource());
+		components.put("org.sakaiproject.component.api.ServerConfigurationService", createConfiguration(config));
+		components.put("org.sakaiproject.component.SakaiProperties", createSakaiProperties(config));
+		components.put("org.sakaiproject.tool.api.SessionManager", createSessionManager(sessions));
+		components.put("org.sakaiproject.event.api.UsageSessionService", createUsageSessionService(sessions));
+		components.put("org.sakaiproject.user.api.UserDirectoryService", createUserDirectoryService());
+		components.put("org.sakaiproject.tool.api.ActiveToolManager", createToolManager(100));
+		components.put("org.sakaiproject.authz.api.FunctionManager", createFunctionManager(500));
+		components.put("org.sakaiproject.memory.api.MemoryService.cacheManager", createCacheManager(caches));
+		return components;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> T stub(Class<T> type, Map<String,Function<Object[],Object>> methods)
+	{
+		return (T) Proxy.newProxyInstance(StubComponents.class.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					Function<Object[],Object> implementation = methods.get(method.getName());
+					if(implementation != null) {
+						return implementation.apply(args);
+					}
+					switch(method.getName()) {
+					case "toString":
+						return "stub " + type.getSimpleName();
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						break;
+					}
+					Class<?> returnType = method.getReturnType();
+					if(returnType == boolean.class) {
+						return false;
+					}
+					if(returnType == int.class) {
+						return 0;
+					}
+					if(returnType == long.class) {
+						return 0L;
+					}
+					return null;
+				});
+	}
+
+	static ServerConfigurationService createConfiguration(Properties config)
+	{
+		Map<String,Function<Object[],Object>> methods = new HashMap<>();
+		methods.put("getString", args -> config.getProperty((String) args[0], (args.length > 1) ? (String) args[1] : ""));
+		methods.put("getInt", args -> {
+			String value = config.getProperty((String) args[0]);
+			return (value == null) ? args[1] : Integer.valueOf(value.trim());
+		});
+		methods.put("getBoolean", args -> {
+			String value = config.getProperty((String) args[0]);
+			return (value == null) ? args[1] : Boolean.valueOf(value.trim());
+		});
+		return stub(ServerConfigurationService.class, methods);
+	}
+
+	static SakaiProperties createSakaiProperties(Properties config)
+	{
+		final Properties raw = new Properties();
+		raw.putAll(config);
+		raw.setProperty("serverId", "benchmark");
+		raw.setProperty("password@javax.sql.BaseDataSource", "secret");
+		return new SakaiProperties() {
+			public Properties getRawProperties() {
+				return raw;
+			}
+		};
+	}
+
+	static SessionManager createSessionManager(int sessions)
+	{
+		Map<String,Function<Object[],Object>> methods = new HashMap<>();
+		// fewer users are active over shorter periods
+		methods.put("getActiveUserCount", args -> (int) ((long) sessions * (Integer) args[0] / 3600));
+		return stub(SessionManager.class, methods);
+	}
+
+	static UsageSessionService createUsageSessionService(int sessions)
+	{
+		final Map<String,List<UsageSession>> byServer = new LinkedHashMap<>();
+		for(int i = 0; i < sessions; i++) {
+			final String server = "app" + (i % SERVERS) + "-1519912931204";
+			final String userId = "user-" + i;
+			// the servlet takes the user ID from the fifth field of toString()
+			final String description = "session-" + i + " " + server + " 10.0.0." + (i % 250) + " agent " + userId;
+			Map<String,Function<Object[],Object>> methods = new HashMap<>();
+			methods.put("toString", args -> description);
+			methods.put("getUserId", args -> userId);
+			methods.put("getServer", args -> server);
+			byServer.computeIfAbsent(server, k -> new ArrayList<>()).add(stub(UsageSession.class, methods));
+		}
+
+		Map<String,Function<Object[],Object>> methods = new HashMap<>();
+		methods.put("getOpenSessionsByServer", args -> byServer);
+		return stub(UsageSessionService.class, methods);
+	}
+
+	static UserDirectoryService createUserDirectoryService()
+	{
+		Map<String,Function<Object[],Object>> methods = new HashMap<>();
+		methods.put("getUser", args -> {
+			final String eid = "eid-" + args[0];
+			Map<String,Function<Object[],Object>> userMethods = new HashMap<>();
+			userMethods.put("getId", a -> args[0]);
+			userMethods.put("getEid", a -> eid);
+			userMethods.put("getDisplayId", a -> eid);
+			return stub(User.class, userMethods);
+		});
+		return stub(UserDirectoryService.class, methods);
+	}
+
+	static ToolManager createToolManager(int count)
+	{
+		final Map<String,Tool> tools = new LinkedHashMap<>();
+		for(int i = 0; i < count; i++) {
+			final String id = "sakai.tool" + i;
+			final Properties config = new Properties();
+			config.setProperty("functions.require", "tool" + i + ".read");
+			config.setProperty("groupAware", "true");
+			Map<String,Function<Object[],Object>> methods = new HashMap<>();
+			methods.put("getId", args -> id);
+			methods.put("getTitle", args -> "Tool " + id);
+			methods.put("getDescription", args -> "Stand-in tool " + id);
+			methods.put("getRegisteredConfig", args -> config);
+			methods.put("getMutableConfig", args -> config);
+			methods.put("getFinalConfig", args -> new Properties());
+			methods.put("getKeywords", args -> new HashSet<>(Arrays.asList("benchmark")));
+			methods.put("getCategories", args -> new HashSet<>(Arrays.asList("course", "project")));
+			tools.put(id, stub(Tool.class, methods));
+		}
+
+		Map<String,Function<Object[],Object>> methods = new HashMap<>();
+		methods.put("findTools", args -> new HashSet<>(tools.values()));
+		methods.put("getTool", args -> tools.get(args[0]));
+		return stub(ToolManager.class, methods);
+	}
+
+	static FunctionManager createFunctionManager(int count)
+	{
+		final List<String> functions = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			functions.add("function" + i + ".read");
+		}
+		Map<String,Function<Object[],Object>> methods = new HashMap<>();
+		methods.put("getRegisteredFunctions", args -> new ArrayList<>(functions));
+		return stub(FunctionManager.class, methods);
+	}
+
+	// a real (in-memory) Ehcache manager, with some hits and misses recorded
+	static CacheManager createCacheManager(int count)
+	{
+		CacheManager manager = new CacheManager(new Configuration().name("sakai-status-benchmark-" + System.nanoTime()));
+		for(int i = 0; i < count; i++) {
+			Cache cache = new Cache(new CacheConfiguration("org.sakaiproject.stub.Cache" + i, 1000));
+			manager.addCache(cache);
+			for(int key = 0; key < 100; key++) {
+				cache.put(new Element(key, "value" + key));
+			}
+			for(int key = 0; key < 150; key++) {
+				cache.get(key);
+			}
+		}
+		return manager;
+	}
+}
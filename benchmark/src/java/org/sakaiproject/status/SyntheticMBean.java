@@ -0,0 +1,132 @@
+// SyntheticMBean.java
+//   A map-backed MBean standing in for Tomcat's ThreadPool, WebModule and
+//   RequestProcessor beans
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+// Attribute values that are a Supplier are evaluated on every read, so
+// counters like currentThreadsBusy move between samples the way real ones do.
+public class SyntheticMBean implements DynamicMBean
+{
+	private final Map<String,Object> attributes = new LinkedHashMap<>();
+	private MBeanInfo info;
+
+	public SyntheticMBean with(String name, Object value)
+	{
+		attributes.put(name, value);
+		info = null;
+		return this;
+	}
+
+	// an MBeanServer holding "count" each of ThreadPool, WebModule and
+	// RequestProcessor beans, named as Tomcat names them
+	public static MBeanServer createServer(int count) throws Exception
+	{
+		MBeanServer server = MBeanServerFactory.newMBeanServer();
+		for(int i = 0; i < count; i++) {
+			final int maxThreads = 200;
+			String connector = "http-nio-" + (8000 + i);
+			server.registerMBean(new SyntheticMBean()
+					.with("name", connector)
+					.with("maxThreads", maxThreads)
+					.with("currentThreadCount", maxThreads)
+					.with("currentThreadsBusy", (Supplier<Integer>) () -> ThreadLocalRandom.current().nextInt(maxThreads * 4 / 5))
+					.with("connectionCount", (Supplier<Integer>) () -> ThreadLocalRandom.current().nextInt(maxThreads))
+					.with("acceptCount", 100),
+					new ObjectName("Catalina:type=ThreadPool,name=\"" + connector + "\""));
+
+			final long[] processingTime = { 0 };
+			server.registerMBean(new SyntheticMBean()
+					.with("docBase", "/opt/tomcat/webapps/app" + i)
+					.with("path", "/app" + i)
+					.with("state", "STARTED")
+					.with("processingTime", (Supplier<Long>) () -> processingTime[0] += ThreadLocalRandom.current().nextInt(50)),
+					new ObjectName("Catalina:j2eeType=WebModule,name=//localhost/app" + i + ",J2EEApplication=none,J2EEServer=none"));
+
+			final String uri = (i % 2 == 0) ? "/portal/site/" + i : null;
+			server.registerMBean(new SyntheticMBean()
+					.with("currentUri", uri)
+					.with("workerThreadName", "http-nio-8080-exec-" + i)
+					.with("requestProcessingTime", (Supplier<Long>) () -> (long) ThreadLocalRandom.current().nextInt(1000)),
+					new ObjectName("Catalina:type=RequestProcessor,worker=\"http-nio-8080\",name=HttpRequest" + i));
+		}
+		return server;
+	}
+
+	public Object getAttribute(String name) throws AttributeNotFoundException
+	{
+		if(!attributes.containsKey(name)) {
+			throw new AttributeNotFoundException(name);
+		}
+		Object value = attributes.get(name);
+		return (value instanceof Supplier) ? ((Supplier<?>) value).get() : value;
+	}
+
+	public AttributeList getAttributes(String[] names)
+	{
+		AttributeList list = new AttributeList();
+		for(String name : names) {
+			if(attributes.containsKey(name)) {
+				Object value = attributes.get(name);
+				list.add(new Attribute(name, (value instanceof Supplier) ? ((Supplier<?>) value).get() : value));
+			}
+		}
+		return list;
+	}
+
+	public void setAttribute(Attribute attribute)
+	{
+		attributes.put(attribute.getName(), attribute.getValue());
+	}
+
+	public AttributeList setAttributes(AttributeList list)
+	{
+		for(Attribute attribute : list.asList()) {
+			setAttribute(attribute);
+		}
+		return list;
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature)
+	{
+		return null;
+	}
+
+	public synchronized MBeanInfo getMBeanInfo()
+	{
+		if(info == null) {
+			MBeanAttributeInfo[] attributeInfo = new MBeanAttributeInfo[attributes.size()];
+			int i = 0;
+			for(Map.Entry<String,Object> entry : attributes.entrySet()) {
+				Object value = entry.getValue();
+				if(value instanceof Supplier) {
+					value = ((Supplier<?>) value).get();
+				}
+				String type = (value == null) ? String.class.getName() : value.getClass().getName();
+				attributeInfo[i++] = new MBeanAttributeInfo(entry.getKey(), type, entry.getKey(), true, true, false);
+			}
+			info = new MBeanInfo(getClass().getName(), "synthetic", attributeInfo, null, new MBeanOperationInfo[0], null);
+		}
+		return info;
+	}
+}
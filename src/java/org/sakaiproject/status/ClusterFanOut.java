@@ -0,0 +1,266 @@
+// ClusterFanOut.java
+//   Queries every node's sakai-status in parallel and merges the responses
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Every peer request is started at once and they all share one deadline, so
+// the report takes as long as the slowest node or the timeout, whichever
+// comes first. Nodes that miss the deadline are reported as unreachable
+// rather than holding up the rest.
+//
+// Threads are created as needed rather than drawn from a fixed pool, so a
+// hung node never holds the threads the other nodes' requests need. A
+// blocked HttpURLConnection read ignores interrupts, so a request that
+// misses the deadline is disconnected to free its thread; at most one
+// thread per node per /cluster request is ever in use.
+class ClusterFanOut
+{
+	static final int MAX_RESPONSE = 1024 * 1024;
+
+	private final int timeout;
+	private final ExecutorService executor;
+	private final Set<Request> active = ConcurrentHashMap.newKeySet();
+
+	ClusterFanOut(int timeout)
+	{
+		this.timeout = timeout;
+		this.executor = Executors.newCachedThreadPool(DaemonThreads.factory("sakai-status-cluster"));
+	}
+
+	void stop()
+	{
+		for(Request request : active) {
+			request.abandon();
+		}
+		DaemonThreads.shutdown(executor);
+	}
+
+	// prefixes each line of each node's response with the node name:
+	// node,<response line>  or  node,UNREACHABLE,<reason>
+	void report(Map<String,String> peers, String path, PrintWriter pw)
+	{
+		for(Map.Entry<String,Result> entry : fetch(peers, path).entrySet()) {
+			Result result = entry.getValue();
+			if(result.error != null) {
+				pw.print(entry.getKey() + ",UNREACHABLE," + result.error + "\n");
+				continue;
+			}
+			for(String line : result.body.split("\n")) {
+				if(line.length() > 0) {
+					pw.print(entry.getKey() + "," + line + "\n");
+				}
+			}
+		}
+	}
+
+	// one line per node, from each node's /system/metrics:
+	// node,free-memory,total-memory,max-memory,db-active,db-idle,threads-busy,threads-max,cache-hit-ratio
+	void reportSummary(Map<String,String> peers, PrintWriter pw)
+	{
+		for(Map.Entry<String,Result> entry : fetch(peers, "/system/metrics").entrySet()) {
+			Result result = entry.getValue();
+			if(result.error != null) {
+				pw.print(entry.getKey() + ",UNREACHABLE," + result.error + "\n");
+				continue;
+			}
+
+			Map<String,Long> metrics = new LinkedHashMap<>();
+			long busy = 0;
+			long maxThreads = 0;
+			long hits = 0;
+			long misses = 0;
+			for(String line : result.body.split("\n")) {
+				int split = line.indexOf('=');
+				if(split < 0) {
+					continue;
+				}
+				String key = line.substring(0, split);
+				long value;
+				try {
+					value = Long.parseLong(line.substring(split + 1).trim());
+				}
+				catch(NumberFormatException e) {
+					continue;
+				}
+				metrics.put(key, value);
+				if(key.startsWith("threads.") && key.endsWith(".busy")) {
+					busy += value;
+				}
+				else if(key.startsWith("threads.") && key.endsWith(".max")) {
+					maxThreads += value;
+				}
+				else if(key.startsWith("cache.") && key.endsWith(".hits")) {
+					hits += value;
+				}
+				else if(key.startsWith("cache.") && key.endsWith(".misses")) {
+					misses += value;
+				}
+			}
+			long total = hits + misses;
+
+			pw.print(entry.getKey() + ",");
+			pw.print(valueOf(metrics, "memory.free") + ",");
+			pw.print(valueOf(metrics, "memory.total") + ",");
+			pw.print(valueOf(metrics, "memory.max") + ",");
+			pw.print(valueOf(metrics, "database.active") + ",");
+			pw.print(valueOf(metrics, "database.idle") + ",");
+			pw.print(busy + ",");
+			pw.print(maxThreads + ",");
+			pw.print(((total > 0) ? ((100l * hits) / total) : 0) + "%\n");
+		}
+	}
+
+	private static String valueOf(Map<String,Long> metrics, String key)
+	{
+		Long value = metrics.get(key);
+		return (value == null) ? "" : value.toString();
+	}
+
+	// node name -> result, in the order of the given peers
+	Map<String,Result> fetch(Map<String,String> peers, String path)
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		Map<String,Request> requests = new LinkedHashMap<>();
+		Map<String,CompletableFuture<String>> pending = new LinkedHashMap<>();
+		for(Map.Entry<String,String> peer : peers.entrySet()) {
+			final Request request = new Request(peer.getValue() + path);
+			requests.put(peer.getKey(), request);
+			active.add(request);
+			pending.put(peer.getKey(), CompletableFuture.supplyAsync(() -> {
+				try {
+					return request.get();
+				}
+				finally {
+					active.remove(request);
+				}
+			}, executor));
+		}
+
+		Map<String,Result> results = new LinkedHashMap<>();
+		for(Map.Entry<String,CompletableFuture<String>> entry : pending.entrySet()) {
+			CompletableFuture<String> future = entry.getValue();
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				results.put(entry.getKey(), new Result(future.get(remaining, TimeUnit.MILLISECONDS), null));
+			}
+			catch(TimeoutException e) {
+				requests.get(entry.getKey()).abandon();
+				results.put(entry.getKey(), new Result(null, "timed out after " + timeout + "ms"));
+			}
+			catch(ExecutionException e) {
+				Throwable cause = (e.getCause() instanceof WrappedIOException) ? e.getCause().getCause() : e.getCause();
+				results.put(entry.getKey(), new Result(null, cause.getClass().getSimpleName() + ": " + cause.getMessage()));
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for(Request request : requests.values()) {
+					request.abandon();
+				}
+				results.put(entry.getKey(), new Result(null, "interrupted"));
+			}
+		}
+		return results;
+	}
+
+	private class Request
+	{
+		final String url;
+		volatile HttpURLConnection connection;
+		volatile boolean abandoned = false;
+
+		Request(String url)
+		{
+			this.url = url;
+		}
+
+		// closes the connection, which makes a blocked read in get() fail
+		void abandon()
+		{
+			abandoned = true;
+			HttpURLConnection current = connection;
+			if(current != null) {
+				current.disconnect();
+			}
+		}
+
+		String get()
+		{
+			try {
+				connection = (HttpURLConnection) new URL(url).openConnection();
+				connection.setConnectTimeout(timeout);
+				connection.setReadTimeout(timeout);
+				connection.setInstanceFollowRedirects(false);
+				if(abandoned) {
+					throw new IOException("abandoned");
+				}
+				int status = connection.getResponseCode();
+				if(status != HttpURLConnection.HTTP_OK) {
+					throw new IOException("HTTP " + status);
+				}
+				try (InputStream in = connection.getInputStream()) {
+					ByteArrayOutputStream body = new ByteArrayOutputStream();
+					byte[] buffer = new byte[8192];
+					int read;
+					while((read = in.read(buffer)) != -1) {
+						if(body.size() + read > MAX_RESPONSE) {
+							throw new IOException("response larger than " + MAX_RESPONSE + " bytes");
+						}
+						body.write(buffer, 0, read);
+					}
+					return new String(body.toByteArray(), StandardCharsets.UTF_8);
+				}
+			}
+			catch(IOException e) {
+				throw new WrappedIOException(e);
+			}
+			finally {
+				if(connection != null) {
+					connection.disconnect();
+				}
+			}
+		}
+	}
+
+	static class Result
+	{
+		final String body;
+		final String error;
+
+		Result(String body, String error)
+		{
+			this.body = body;
+			this.error = error;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class WrappedIOException extends RuntimeException
+	{
+		WrappedIOException(IOException e)
+		{
+			super(e);
+		}
+	}
+}
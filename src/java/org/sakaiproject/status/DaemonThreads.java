@@ -0,0 +1,53 @@
+// DaemonThreads.java
+//   Creates and shuts down the background threads used by the servlet
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// The threads are daemons so they never hold up a JVM shutdown, and
+// shutdown() waits for them so none are left running after an undeploy.
+class DaemonThreads
+{
+	static final long SHUTDOWN_TIMEOUT = 1000;
+
+	static ThreadFactory factory(String name)
+	{
+		return r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	static ScheduledExecutorService newScheduler(String name)
+	{
+		return Executors.newSingleThreadScheduledExecutor(factory(name));
+	}
+
+	// interrupts the running tasks and waits up to SHUTDOWN_TIMEOUT for them
+	// to finish
+	static void shutdown(ExecutorService executor)
+	{
+		if(executor == null) {
+			return;
+		}
+		executor.shutdownNow();
+		try {
+			if(!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				System.err.println("sakai-status background threads did not stop within " + SHUTDOWN_TIMEOUT + "ms");
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
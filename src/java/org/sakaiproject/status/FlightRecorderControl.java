@@ -0,0 +1,374 @@
+// FlightRecorderControl.java
+//   Controls a bounded JDK Flight Recorder recording and summarizes its
+//   recent events
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import jdk.management.jfr.ConfigurationInfo;
+import jdk.management.jfr.FlightRecorderMXBean;
+
+// There is only ever one recording owned by this servlet, found by name so
+// that it survives a redeploy of the webapp. It is bounded by both age and
+// size, so it can be left running indefinitely.
+class FlightRecorderControl
+{
+	static final String RECORDING_NAME = "sakai-status";
+	static final String MAX_AGE = "1 h";
+	static final String MAX_SIZE = Long.toString(100L * 1024 * 1024);
+	static final String BASE_CONFIGURATION = "default";
+	static final Duration SUMMARY_WINDOW = Duration.ofMinutes(10);
+	static final int TOP_N = 10;
+	static final long MIN_DUMP_INTERVAL = 60000;
+	static final int MAX_DUMP_FILES = 3;
+
+	// applied on top of the base configuration so the events summarized
+	// below are always recorded with the same thresholds
+	private static final String[][] SETTINGS = {
+		{ "jdk.GarbageCollection#enabled", "true" },
+		{ "jdk.SafepointBegin#enabled", "true" },
+		{ "jdk.SafepointBegin#threshold", "10 ms" },
+		{ "jdk.ExecuteVMOperation#enabled", "true" },
+		{ "jdk.ExecuteVMOperation#threshold", "10 ms" },
+		{ "jdk.SocketRead#enabled", "true" },
+		{ "jdk.SocketRead#threshold", "20 ms" },
+		{ "jdk.SocketWrite#enabled", "true" },
+		{ "jdk.SocketWrite#threshold", "20 ms" },
+		{ "jdk.FileRead#enabled", "true" },
+		{ "jdk.FileRead#threshold", "20 ms" },
+		{ "jdk.FileWrite#enabled", "true" },
+		{ "jdk.FileWrite#threshold", "20 ms" },
+		{ "jdk.JavaMonitorWait#enabled", "true" },
+		{ "jdk.JavaMonitorWait#threshold", "20 ms" },
+		{ "jdk.JavaMonitorEnter#enabled", "true" },
+		{ "jdk.JavaMonitorEnter#threshold", "20 ms" },
+	};
+
+	private final MBeanServer mbs;
+	private long lastDumpId = -1;
+	private long lastDumpTime = 0;
+	private File lastDumpFile;
+
+	FlightRecorderControl(MBeanServer mbs)
+	{
+		this.mbs = mbs;
+	}
+
+	private FlightRecorderMXBean getFlightRecorder() throws Exception
+	{
+		return JMX.newMXBeanProxy(mbs, new ObjectName(FlightRecorderMXBean.MXBEAN_NAME), FlightRecorderMXBean.class);
+	}
+
+	// Recordings are read as the raw CompositeData, not through the proxy's
+	// RecordingInfo mapping, which fails on Java 8 as soon as a recording
+	// exists (its "id" is a Long where RecordingInfo expects an Integer).
+	private CompositeData[] getRecordings() throws Exception
+	{
+		return (CompositeData[])mbs.getAttribute(new ObjectName(FlightRecorderMXBean.MXBEAN_NAME), "Recordings");
+	}
+
+	private CompositeData findRecording() throws Exception
+	{
+		for(CompositeData recording : getRecordings()) {
+			if(RECORDING_NAME.equals(recording.get("name")) && !"CLOSED".equals(recording.get("state"))) {
+				return recording;
+			}
+		}
+		return null;
+	}
+
+	private static long getLong(CompositeData recording, String key)
+	{
+		return ((Number)recording.get(key)).longValue();
+	}
+
+	synchronized void reportStatus(PrintWriter pw) throws Exception
+	{
+		for(CompositeData recording : getRecordings()) {
+			pw.print(getLong(recording, "id") + "," + recording.get("name") + "," + recording.get("state") + "," +
+					Instant.ofEpochMilli(getLong(recording, "startTime")) + "," + getLong(recording, "size") + "," +
+					getLong(recording, "maxAge") + "," + getLong(recording, "maxSize") + "\n");
+		}
+	}
+
+	synchronized void start(PrintWriter pw) throws Exception
+	{
+		FlightRecorderMXBean jfr = getFlightRecorder();
+		CompositeData existing = findRecording();
+		if(existing != null && "RUNNING".equals(existing.get("state"))) {
+			pw.print("already running: " + getLong(existing, "id") + "\n");
+			return;
+		}
+
+		Map<String,String> settings = new HashMap<>();
+		for(ConfigurationInfo config : jfr.getConfigurations()) {
+			if(BASE_CONFIGURATION.equals(config.getName())) {
+				settings.putAll(config.getSettings());
+			}
+		}
+		for(String[] setting : SETTINGS) {
+			settings.put(setting[0], setting[1]);
+		}
+
+		Map<String,String> options = new HashMap<>();
+		options.put("name", RECORDING_NAME);
+		options.put("maxAge", MAX_AGE);
+		options.put("maxSize", MAX_SIZE);
+		options.put("disk", "true");
+		options.put("dumpOnExit", "false");
+
+		long id = (existing == null) ? jfr.newRecording() : getLong(existing, "id");
+		jfr.setRecordingOptions(id, options);
+		jfr.setRecordingSettings(id, settings);
+		jfr.startRecording(id);
+		pw.print("started: " + id + "\n");
+	}
+
+	// writes what has been recorded so far and closes the recording
+	synchronized void stop(PrintWriter pw) throws Exception
+	{
+		FlightRecorderMXBean jfr = getFlightRecorder();
+		CompositeData existing = findRecording();
+		if(existing == null) {
+			pw.print("not running\n");
+			return;
+		}
+		long id = getLong(existing, "id");
+		if("RUNNING".equals(existing.get("state"))) {
+			jfr.stopRecording(id);
+		}
+		File dumpFile = writeDumpFile(jfr, id);
+		jfr.closeRecording(id);
+		pw.print("stopped: " + id + "\n");
+		pw.print("file: " + dumpFile.getPath() + "\n");
+	}
+
+	// Dumps of the same recording within MIN_DUMP_INTERVAL of the last one
+	// report that dump's file instead of writing a new one.
+	synchronized void dump(PrintWriter pw) throws Exception
+	{
+		FlightRecorderMXBean jfr = getFlightRecorder();
+		CompositeData existing = findRecording();
+		if(existing == null) {
+			pw.print("not running\n");
+			return;
+		}
+		long id = getLong(existing, "id");
+		long wait = lastDumpTime + MIN_DUMP_INTERVAL - System.currentTimeMillis();
+		if(id == lastDumpId && wait > 0) {
+			pw.print("rate-limited: next dump allowed in " + ((wait + 999) / 1000) + "s\n");
+			pw.print("file: " + lastDumpFile.getPath() + "\n");
+			return;
+		}
+		File dumpFile = writeDumpFile(jfr, id);
+		pw.print("file: " + dumpFile.getPath() + "\n");
+	}
+
+	// Each recording has one dump file, overwritten by every dump of it, and
+	// only the newest MAX_DUMP_FILES dump files are kept, so repeated dumps
+	// cannot fill the temporary directory.
+	private File writeDumpFile(FlightRecorderMXBean jfr, long id) throws IOException
+	{
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		File dumpFile = new File(dir, RECORDING_NAME + "-" + id + ".jfr");
+		jfr.copyTo(id, dumpFile.getPath());
+		lastDumpId = id;
+		lastDumpTime = System.currentTimeMillis();
+		lastDumpFile = dumpFile;
+
+		File[] dumps = dir.listFiles((d, name) -> name.matches(RECORDING_NAME + "-[0-9-]+\\.jfr"));
+		if(dumps != null && dumps.length > MAX_DUMP_FILES) {
+			Arrays.sort(dumps, Comparator.comparingLong(File::lastModified).reversed());
+			for(int i = MAX_DUMP_FILES; i < dumps.length; i++) {
+				if(!dumps[i].equals(dumpFile)) {
+					dumps[i].delete();
+				}
+			}
+		}
+		return dumpFile;
+	}
+
+	// A running recording cannot be streamed, so this works from a snapshot
+	// of it. Only the last SUMMARY_WINDOW of the snapshot is streamed out of
+	// the repository, into a temporary file that is parsed and then deleted.
+	synchronized void summarize(PrintWriter pw) throws Exception
+	{
+		FlightRecorderMXBean jfr = getFlightRecorder();
+		if(findRecording() == null) {
+			pw.print("not running\n");
+			return;
+		}
+
+		Instant since = Instant.now().minus(SUMMARY_WINDOW);
+		Map<String,String> streamOptions = new HashMap<>();
+		streamOptions.put("startTime", since.toString());
+		File chunkFile = File.createTempFile(RECORDING_NAME + "-summary-", ".jfr");
+		long snapshotId = jfr.takeSnapshot();
+		try {
+			long streamId = jfr.openStream(snapshotId, streamOptions);
+			try (OutputStream out = new FileOutputStream(chunkFile)) {
+				byte[] block;
+				while((block = jfr.readStream(streamId)) != null) {
+					out.write(block);
+				}
+			}
+			finally {
+				jfr.closeStream(streamId);
+			}
+			printSummary(chunkFile, since, pw);
+		}
+		finally {
+			jfr.closeRecording(snapshotId);
+			chunkFile.delete();
+		}
+	}
+
+	private void printSummary(File chunkFile, Instant since, PrintWriter pw) throws IOException
+	{
+		List<RecordedEvent> gcs = new ArrayList<>();
+		List<RecordedEvent> safepoints = new ArrayList<>();
+		Map<String,Aggregate> vmOperations = new HashMap<>();
+		Map<String,Aggregate> socketIO = new HashMap<>();
+		Map<String,Aggregate> fileIO = new HashMap<>();
+		Map<String,Aggregate> monitors = new HashMap<>();
+
+		try (RecordingFile recording = new RecordingFile(chunkFile.toPath())) {
+			while(recording.hasMoreEvents()) {
+				RecordedEvent event = recording.readEvent();
+				if(event.getEndTime().isBefore(since)) {
+					continue;
+				}
+				switch(event.getEventType().getName()) {
+				case "jdk.GarbageCollection":
+					gcs.add(event);
+					break;
+				case "jdk.SafepointBegin":
+					safepoints.add(event);
+					break;
+				case "jdk.ExecuteVMOperation":
+					if(event.getBoolean("safepoint")) {
+						aggregate(vmOperations, event.getString("operation"), event, 0);
+					}
+					break;
+				case "jdk.SocketRead":
+					aggregate(socketIO, "read," + event.getString("host") + ":" + event.getInt("port"),
+							event, event.getLong("bytesRead"));
+					break;
+				case "jdk.SocketWrite":
+					aggregate(socketIO, "write," + event.getString("host") + ":" + event.getInt("port"),
+							event, event.getLong("bytesWritten"));
+					break;
+				case "jdk.FileRead":
+					aggregate(fileIO, "read," + event.getString("path"), event, event.getLong("bytesRead"));
+					break;
+				case "jdk.FileWrite":
+					aggregate(fileIO, "write," + event.getString("path"), event, event.getLong("bytesWritten"));
+					break;
+				case "jdk.JavaMonitorWait":
+					aggregate(monitors, "wait," + className(event.getClass("monitorClass")), event, 0);
+					break;
+				case "jdk.JavaMonitorEnter":
+					aggregate(monitors, "enter," + className(event.getClass("monitorClass")), event, 0);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+
+		pw.print("since: " + since + "\n");
+
+		// start,sum-of-pauses-ms,longest-pause-ms,name,cause
+		pw.print("gc-pauses: " + gcs.size() + "\n");
+		gcs.sort(Comparator.comparing((RecordedEvent e) -> e.getDuration("sumOfPauses")).reversed());
+		for(RecordedEvent gc : gcs.subList(0, Math.min(TOP_N, gcs.size()))) {
+			pw.print("  " + gc.getStartTime() + "," +
+					millis(gc.getDuration("sumOfPauses")) + "," +
+					millis(gc.getDuration("longestPause")) + "," +
+					gc.getString("name") + "," +
+					gc.getString("cause") + "\n");
+		}
+
+		// start,duration-ms,total-threads
+		pw.print("safepoints: " + safepoints.size() + "\n");
+		safepoints.sort(Comparator.comparing((RecordedEvent e) -> e.getDuration()).reversed());
+		for(RecordedEvent safepoint : safepoints.subList(0, Math.min(TOP_N, safepoints.size()))) {
+			pw.print("  " + safepoint.getStartTime() + "," +
+					millis(safepoint.getDuration()) + "," +
+					safepoint.getInt("totalThreadCount") + "\n");
+		}
+
+		printAggregates("vm-operations", vmOperations, pw);
+		printAggregates("socket-io", socketIO, pw);
+		printAggregates("file-io", fileIO, pw);
+		printAggregates("monitors", monitors, pw);
+	}
+
+	private static String className(RecordedClass recordedClass)
+	{
+		return (recordedClass == null) ? "?" : recordedClass.getName();
+	}
+
+	private static String millis(Duration duration)
+	{
+		return (duration == null) ? "?" : Long.toString(duration.toMillis());
+	}
+
+	private static void aggregate(Map<String,Aggregate> aggregates, String key, RecordedEvent event, long bytes)
+	{
+		Aggregate aggregate = aggregates.computeIfAbsent(key, k -> new Aggregate());
+		long nanos = event.getDuration().toNanos();
+		aggregate.count++;
+		aggregate.totalNanos += nanos;
+		aggregate.maxNanos = Math.max(aggregate.maxNanos, nanos);
+		aggregate.bytes += bytes;
+	}
+
+	// key,count,total-ms,max-ms,bytes ordered by total time
+	private static void printAggregates(String title, Map<String,Aggregate> aggregates, PrintWriter pw)
+	{
+		List<Map.Entry<String,Aggregate>> entries = new ArrayList<>(aggregates.entrySet());
+		entries.sort(Comparator.comparingLong((Map.Entry<String,Aggregate> e) -> e.getValue().totalNanos).reversed());
+		pw.print(title + ": " + entries.size() + "\n");
+		for(Map.Entry<String,Aggregate> entry : entries.subList(0, Math.min(TOP_N, entries.size()))) {
+			Aggregate aggregate = entry.getValue();
+			pw.print("  " + entry.getKey() + "," + aggregate.count + "," +
+					(aggregate.totalNanos / 1000000) + "," +
+					(aggregate.maxNanos / 1000000) + "," +
+					aggregate.bytes + "\n");
+		}
+	}
+
+	private static class Aggregate
+	{
+		long count;
+		long totalNanos;
+		long maxNanos;
+		long bytes;
+	}
+}
@@ -0,0 +1,149 @@
+// HealthMonitor.java
+//   Evaluates health rules in the background so load balancer checks can be
+//   answered from a precomputed response
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.servlet.http.HttpServletResponse;
+
+// All of the work happens on the monitor thread: sampling, evaluating the
+// rules and rendering the response. A health check only reads the volatile
+// status and writes its bytes, so it never touches JMX or a Sakai service
+// and never allocates. A rule has to fail on several evaluations in a row
+// before it fails the node, so a briefly busy pool does not take it out of
+// rotation. If the monitor thread stops updating the status, checks fail.
+class HealthMonitor
+{
+	static final int STALE_INTERVALS = 5;
+
+	private static final Status STARTING = new Status(HttpServletResponse.SC_SERVICE_UNAVAILABLE, 0, "starting\n");
+	private static final Status STALE = new Status(HttpServletResponse.SC_SERVICE_UNAVAILABLE, 0, "fail\nstale: health has not been evaluated recently\n");
+
+	private final Consumer<Map<String,Long>> sampler;
+	private final long interval;
+	private final int failuresRequired;
+	private final List<Rule> rules = new ArrayList<>();
+	private volatile Status status = STARTING;
+	private ScheduledExecutorService scheduler;
+
+	HealthMonitor(Consumer<Map<String,Long>> sampler, long interval, int failuresRequired)
+	{
+		this.sampler = sampler;
+		this.interval = interval;
+		this.failuresRequired = failuresRequired;
+	}
+
+	// the node is unhealthy while the sampled value of "key" is above "max";
+	// a negative max disables the rule, and a key missing from the sample
+	// (not measurable on this node) passes
+	void addRule(String name, String key, long max)
+	{
+		if(max >= 0) {
+			rules.add(new Rule(name, key, max));
+		}
+	}
+
+	void start()
+	{
+		scheduler = DaemonThreads.newScheduler("sakai-status-health");
+		scheduler.scheduleWithFixedDelay(this::evaluate, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	void stop()
+	{
+		DaemonThreads.shutdown(scheduler);
+	}
+
+	void respond(HttpServletResponse response) throws IOException
+	{
+		Status current = status;
+		if(current != STARTING && System.currentTimeMillis() - current.time > STALE_INTERVALS * interval) {
+			current = STALE;
+		}
+		response.setStatus(current.code);
+		response.setContentType("text/plain");
+		response.setContentLength(current.body.length);
+		OutputStream out = response.getOutputStream();
+		out.write(current.body);
+		out.flush();
+	}
+
+	private void evaluate()
+	{
+		long now = System.currentTimeMillis();
+		Map<String,Long> sample = new HashMap<>();
+		try {
+			sampler.accept(sample);
+		}
+		catch(Throwable e) {
+			System.err.println("Exception sampling health: " + e.getMessage());
+		}
+
+		StringBuilder reasons = new StringBuilder();
+		for(Rule rule : rules) {
+			Long value = sample.get(rule.key);
+			if(value != null && value > rule.max) {
+				rule.failures++;
+			}
+			else {
+				rule.failures = 0;
+			}
+			if(rule.failures >= failuresRequired) {
+				reasons.append(rule.name + ": " + rule.key + "=" + value + " > " + rule.max + "\n");
+			}
+		}
+
+		if(reasons.length() == 0) {
+			status = new Status(HttpServletResponse.SC_OK, now, "ok\nchecked: " + Instant.ofEpochMilli(now) + "\n");
+		}
+		else {
+			status = new Status(HttpServletResponse.SC_SERVICE_UNAVAILABLE, now,
+					"fail\nchecked: " + Instant.ofEpochMilli(now) + "\n" + reasons);
+		}
+	}
+
+	private static class Rule
+	{
+		final String name;
+		final String key;
+		final long max;
+		int failures = 0;
+
+		Rule(String name, String key, long max)
+		{
+			this.name = name;
+			this.key = key;
+			this.max = max;
+		}
+	}
+
+	private static class Status
+	{
+		final int code;
+		final long time;
+		final byte[] body;
+
+		Status(int code, long time, String body)
+		{
+			this.code = code;
+			this.time = time;
+			this.body = body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+}
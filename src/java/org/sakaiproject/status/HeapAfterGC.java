@@ -0,0 +1,102 @@
+// HeapAfterGC.java
+//   Tracks old generation usage at the end of every garbage collection
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+// The old generation pool's getCollectionUsage() is only updated by the
+// collector that owns the pool. With G1 on JDK 8 that is the full GC, which
+// a healthy node may never run (JDK-8175375), so the value can be hours
+// stale. A GC notification carries the usage of every pool after every
+// collection, young and mixed ones included, so it is read from there.
+class HeapAfterGC implements NotificationListener
+{
+	private final List<NotificationEmitter> emitters = new ArrayList<>();
+	private String pool;
+	private volatile long percent = -1;
+
+	void start()
+	{
+		// the heap pool with a collection usage and the largest maximum is
+		// the old generation; its last collection usage is the starting value
+		MemoryUsage largest = null;
+		for(MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = bean.getCollectionUsage();
+			if(bean.getType() == MemoryType.HEAP && usage != null && usage.getMax() > 0 &&
+					(largest == null || usage.getMax() > largest.getMax())) {
+				largest = usage;
+				pool = bean.getName();
+			}
+		}
+		if(largest == null) {
+			return;
+		}
+		update(largest);
+
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if(gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener(this, null, null);
+				emitters.add((NotificationEmitter) gc);
+			}
+		}
+	}
+
+	void stop()
+	{
+		for(NotificationEmitter emitter : emitters) {
+			try {
+				emitter.removeNotificationListener(this);
+			}
+			catch (ListenerNotFoundException e) {
+				// already removed
+			}
+		}
+		emitters.clear();
+	}
+
+	// percentage of the old generation's maximum in use after the last GC,
+	// or -1 if there is no such pool
+	long getPercent()
+	{
+		return percent;
+	}
+
+	// called on the JVM's notification thread after each collection
+	public void handleNotification(Notification notification, Object handback)
+	{
+		if(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+			GarbageCollectionNotificationInfo info =
+					GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+			MemoryUsage usage = info.getGcInfo().getMemoryUsageAfterGc().get(pool);
+			if(usage != null) {
+				update(usage);
+			}
+		}
+	}
+
+	private void update(MemoryUsage usage)
+	{
+		if(usage.getMax() > 0) {
+			percent = (100L * usage.getUsed()) / usage.getMax();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+// HeapHistogram.java
+//   Takes class histograms through the DiagnosticCommand MBean and reports
+//   which classes grew between snapshots
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// GC.class_histogram only counts live objects, so every snapshot forces a
+// full collection. That is far cheaper than a heap dump but still a pause,
+// which is why snapshots are rate limited: requests arriving within
+// MIN_INTERVAL of the last snapshot get that snapshot's report again.
+class HeapHistogram
+{
+	static final long MIN_INTERVAL = 60000;
+	static final int TOP_N = 20;
+
+	//    1:        123456       12345678  [C (java.base@11)
+	private static final Pattern ROW = Pattern.compile("^\\s*\\d+:\\s+(\\d+)\\s+(\\d+)\\s+(\\S+)");
+
+	private final MBeanServer mbs;
+	private Map<String,long[]> current;
+	private Map<String,long[]> previous;
+	private long currentTime = 0;
+	private long previousTime = 0;
+
+	HeapHistogram(MBeanServer mbs)
+	{
+		this.mbs = mbs;
+	}
+
+	synchronized void report(PrintWriter pw) throws Exception
+	{
+		long now = System.currentTimeMillis();
+		long wait = currentTime + MIN_INTERVAL - now;
+		if(current != null && wait > 0) {
+			pw.print("rate-limited: next snapshot allowed in " + ((wait + 999) / 1000) + "s\n");
+		}
+		else {
+			String output = (String) mbs.invoke(
+					new ObjectName("com.sun.management:type=DiagnosticCommand"),
+					"gcClassHistogram",
+					new Object[] { new String[0] },
+					new String[] { String[].class.getName() });
+			previous = current;
+			previousTime = currentTime;
+			current = parse(output);
+			currentTime = now;
+		}
+		print(pw);
+	}
+
+	// class name -> {instances, bytes}
+	static Map<String,long[]> parse(String output) throws IOException
+	{
+		Map<String,long[]> histogram = new HashMap<>();
+		BufferedReader reader = new BufferedReader(new StringReader(output));
+		String line;
+		while((line = reader.readLine()) != null) {
+			Matcher m = ROW.matcher(line);
+			if(m.find()) {
+				// the same name can appear once per class loader
+				long[] counts = histogram.computeIfAbsent(m.group(3), k -> new long[2]);
+				counts[0] += Long.parseLong(m.group(1));
+				counts[1] += Long.parseLong(m.group(2));
+			}
+		}
+		return histogram;
+	}
+
+	private void print(PrintWriter pw)
+	{
+		long totalInstances = 0;
+		long totalBytes = 0;
+		for(long[] counts : current.values()) {
+			totalInstances += counts[0];
+			totalBytes += counts[1];
+		}
+		long previousInstances = 0;
+		long previousBytes = 0;
+		if(previous != null) {
+			for(long[] counts : previous.values()) {
+				previousInstances += counts[0];
+				previousBytes += counts[1];
+			}
+		}
+
+		// {instances, bytes, instance-growth, byte-growth}
+		List<Map.Entry<String,long[]>> growth = new ArrayList<>();
+		for(Map.Entry<String,long[]> entry : current.entrySet()) {
+			long[] now = entry.getValue();
+			long[] before = (previous == null) ? null : previous.get(entry.getKey());
+			long[] row = new long[] { now[0], now[1], now[0], now[1] };
+			if(before != null) {
+				row[2] -= before[0];
+				row[3] -= before[1];
+			}
+			growth.add(new AbstractMap.SimpleEntry<>(entry.getKey(), row));
+		}
+
+		pw.print("snapshot: " + Instant.ofEpochMilli(currentTime) + "\n");
+		pw.print("previous: " + ((previous == null) ? "none" : Instant.ofEpochMilli(previousTime).toString()) + "\n");
+		pw.print("classes: " + current.size() + "\n");
+		pw.print("instances: " + totalInstances + "," + (totalInstances - previousInstances) + "\n");
+		pw.print("bytes: " + totalBytes + "," + (totalBytes - previousBytes) + "\n");
+		pw.print("growth-by-bytes:\n");
+		printTop(growth, 3, pw);
+		pw.print("growth-by-instances:\n");
+		printTop(growth, 2, pw);
+	}
+
+	// rows are class-name,instance-growth,byte-growth,instances,bytes
+	private void printTop(List<Map.Entry<String,long[]>> growth, int column, PrintWriter pw)
+	{
+		growth.sort(Comparator.comparingLong((Map.Entry<String,long[]> e) -> e.getValue()[column]).reversed());
+		int printed = 0;
+		for(Map.Entry<String,long[]> entry : growth) {
+			long[] row = entry.getValue();
+			if(printed++ >= TOP_N || row[column] <= 0) {
+				break;
+			}
+			pw.print("  " + entry.getKey() + "," + row[2] + "," + row[3] + "," + row[0] + "," + row[1] + "\n");
+		}
+	}
+}
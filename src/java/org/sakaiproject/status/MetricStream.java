@@ -0,0 +1,260 @@
+// MetricStream.java
+//   Pushes changed metric values to server-sent-event subscribers
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// All subscribers share a single sampling thread. Each tick, the subscribers
+// whose interval has elapsed are collected, one sample is taken for all of
+// them, and each one is sent only the values that differ from what it was sent
+// last time. Adding subscribers adds writes, never samples.
+//
+// Writes use non-blocking I/O, so a client that stops reading cannot stall
+// the sampling thread. What the container cannot take yet is queued on the
+// subscriber, and a subscriber that falls too far behind is dropped.
+class MetricStream
+{
+	static final long TICK_INTERVAL = 250;
+	static final long DEFAULT_INTERVAL = 2000;
+	static final long MAX_INTERVAL = 60000;
+	static final long KEEPALIVE_INTERVAL = 15000;
+	static final int MAX_SUBSCRIBERS = 100;
+	static final int MAX_PENDING_BYTES = 256 * 1024;
+	static final long MAX_BLOCKED_TIME = 60000;
+
+	private final Consumer<Map<String,Long>> collector;
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	private ScheduledExecutorService scheduler;
+
+	MetricStream(Consumer<Map<String,Long>> collector)
+	{
+		this.collector = collector;
+	}
+
+	void start()
+	{
+		scheduler = DaemonThreads.newScheduler("sakai-status-stream");
+		scheduler.scheduleWithFixedDelay(this::tick, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	void stop()
+	{
+		DaemonThreads.shutdown(scheduler);
+		for(Subscriber subscriber : subscribers) {
+			subscriber.close();
+		}
+		subscribers.clear();
+	}
+
+	int getSubscriberCount()
+	{
+		return subscribers.size();
+	}
+
+	// "interval" is the number of milliseconds the subscriber wants between
+	// updates; it is rounded up to the sampling tick
+	void subscribe(HttpServletRequest request, HttpServletResponse response) throws IOException
+	{
+		if(subscribers.size() >= MAX_SUBSCRIBERS) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many stream subscribers.");
+			return;
+		}
+
+		long interval = DEFAULT_INTERVAL;
+		String intervalParam = request.getParameter("interval");
+		if(intervalParam != null) {
+			try {
+				interval = Long.parseLong(intervalParam);
+			}
+			catch(NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid interval: " + intervalParam);
+				return;
+			}
+		}
+		interval = Math.max(TICK_INTERVAL, Math.min(MAX_INTERVAL, interval));
+
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+
+		AsyncContext context = request.startAsync();
+		context.setTimeout(0);
+		final Subscriber subscriber = new Subscriber(context, response.getOutputStream(), interval);
+		context.addListener(new AsyncListener() {
+			public void onComplete(AsyncEvent event) { subscribers.remove(subscriber); }
+			public void onTimeout(AsyncEvent event) { subscriber.close(); }
+			public void onError(AsyncEvent event) { subscriber.close(); }
+			public void onStartAsync(AsyncEvent event) { }
+		});
+
+		// the container calls onWritePossible once the listener is set,
+		// which sends this
+		subscriber.enqueue("retry: " + interval + "\n\n", System.currentTimeMillis());
+		subscriber.out.setWriteListener(subscriber);
+		subscribers.add(subscriber);
+	}
+
+	private void tick()
+	{
+		if(subscribers.isEmpty()) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		List<Subscriber> due = new ArrayList<>();
+		for(Subscriber subscriber : subscribers) {
+			if(now >= subscriber.nextUpdate) {
+				due.add(subscriber);
+			}
+		}
+		if(due.isEmpty()) {
+			return;
+		}
+
+		Map<String,Long> sample = new TreeMap<>();
+		try {
+			collector.accept(sample);
+		}
+		catch(Throwable e) {
+			System.err.println("Exception sampling stream metrics: " + e.getMessage());
+		}
+
+		for(Subscriber subscriber : due) {
+			subscriber.nextUpdate = now + subscriber.interval;
+			if(!subscriber.send(sample, now)) {
+				subscriber.close();
+			}
+		}
+	}
+
+	private class Subscriber implements WriteListener
+	{
+		final AsyncContext context;
+		final ServletOutputStream out;
+		final long interval;
+		final Map<String,Long> lastSent = new HashMap<>();
+		final Deque<byte[]> pending = new ArrayDeque<>();
+		int pendingBytes = 0;
+		long blockedSince = 0;
+		long nextUpdate = 0;
+		long lastWrite = 0;
+
+		Subscriber(AsyncContext context, ServletOutputStream out, long interval)
+		{
+			this.context = context;
+			this.out = out;
+			this.interval = interval;
+		}
+
+		// returns false once the client has gone away or fallen behind
+		boolean send(Map<String,Long> sample, long now)
+		{
+			StringBuilder event = new StringBuilder();
+			for(Map.Entry<String,Long> entry : sample.entrySet()) {
+				Long value = entry.getValue();
+				if(!value.equals(lastSent.put(entry.getKey(), value))) {
+					event.append("data: ").append(entry.getKey()).append('=').append(value).append('\n');
+				}
+			}
+
+			if(event.length() > 0) {
+				event.insert(0, "event: metrics\n").append('\n');
+			}
+			else if(now - lastWrite >= KEEPALIVE_INTERVAL) {
+				// also how we find out about clients that have disconnected
+				event.append(": keepalive\n\n");
+			}
+			else {
+				return true;
+			}
+
+			return enqueue(event.toString(), now) && drain();
+		}
+
+		synchronized boolean enqueue(String event, long now)
+		{
+			byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+			if(pendingBytes >= MAX_PENDING_BYTES ||
+					(blockedSince > 0 && now - blockedSince > MAX_BLOCKED_TIME)) {
+				return false;
+			}
+			pending.add(bytes);
+			pendingBytes += bytes.length;
+			lastWrite = now;
+			return true;
+		}
+
+		// writes as much as the container will take without blocking; once
+		// isReady() returns false, the container calls onWritePossible when
+		// the client catches up
+		synchronized boolean drain()
+		{
+			try {
+				while(!pending.isEmpty() && out.isReady()) {
+					byte[] bytes = pending.poll();
+					pendingBytes -= bytes.length;
+					out.write(bytes);
+				}
+				if(pending.isEmpty() && out.isReady()) {
+					out.flush();
+					blockedSince = 0;
+				}
+				else if(blockedSince == 0) {
+					blockedSince = System.currentTimeMillis();
+				}
+				return true;
+			}
+			catch(IOException | IllegalStateException e) {
+				return false;
+			}
+		}
+
+		public void onWritePossible()
+		{
+			if(!drain()) {
+				close();
+			}
+		}
+
+		public void onError(Throwable t)
+		{
+			close();
+		}
+
+		void close()
+		{
+			subscribers.remove(this);
+			try {
+				context.complete();
+			}
+			catch(IllegalStateException e) {
+				// already completed by the container
+			}
+		}
+	}
+}
@@ -19,11 +19,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.function.Consumer;
 
@@ -41,6 +44,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.sakaiproject.authz.api.FunctionManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.event.api.UsageSession;
 import org.sakaiproject.event.api.UsageSessionService;
@@ -63,14 +67,24 @@ import net.sf.ehcache.config.PersistenceConfiguration;
 public class StatusServlet extends HttpServlet
 {
 	protected MBeanServer mbs;
+	protected MetricStream metricStream;
+	protected HeapHistogram heapHistogram;
+	protected FlightRecorderControl flightRecorder;
+	protected ThreadPoolSaturation threadPoolSaturation;
+	protected ClusterFanOut clusterFanOut;
+	protected HealthMonitor healthMonitor;
+	protected HeapAfterGC heapAfterGC;
 
 
 	public static List<String> endpoints;
 	private final Map<String,Consumer<PrintWriter>> ENDPOINTS_MAP  = new HashMap<>();
+	// these change state in the JVM, so they only answer POST and are kept
+	// out of the endpoint index
+	private final Map<String,Consumer<PrintWriter>> ACTIONS_MAP  = new HashMap<>();
 	
 	public void init() throws ServletException
 	{
-		mbs = ManagementFactory.getPlatformMBeanServer();
+		mbs = findMBeanServer();
 		
 		ENDPOINTS_MAP.put("/tomcat/mbeans", this::reportAllMBeans);
 		ENDPOINTS_MAP.put("/tomcat/mbeans/details", this::reportAllMBeanDetails);
@@ -79,11 +93,16 @@ public class StatusServlet extends HttpServlet
 		ENDPOINTS_MAP.put("/tomcat/threads", this::reportThreadPoolStatus);
 		ENDPOINTS_MAP.put("/tomcat/threads/details", this::reportThreadDetails);
 		ENDPOINTS_MAP.put("/tomcat/threads/stacks", this::reportThreadStackTraces);
+		ENDPOINTS_MAP.put("/tomcat/threads/saturation", this::reportThreadPoolSaturation);
 		ENDPOINTS_MAP.put("/tomcat/threadgroups", this::reportThreadGroups);
 		ENDPOINTS_MAP.put("/tomcat/webapps", this::reportWebappStatus);
 		ENDPOINTS_MAP.put("/tomcat/webapps/details", this::reportDetailedWebappStatus);
 		ENDPOINTS_MAP.put("/system/memory", this::reportMemoryStatus);
+		ENDPOINTS_MAP.put("/system/metrics", this::reportMetrics);
 		ENDPOINTS_MAP.put("/system/properties", this::reportSystemProperties);
+		ENDPOINTS_MAP.put("/system/heap/histogram", this::reportHeapHistogram);
+		ENDPOINTS_MAP.put("/system/jfr", this::reportFlightRecordings);
+		ENDPOINTS_MAP.put("/system/jfr/summary", this::reportFlightRecordingSummary);
 		ENDPOINTS_MAP.put("/sakai/database", this::reportSakaiDatabaseStatus);
 		ENDPOINTS_MAP.put("/sakai/beans", this::reportSakaiBeans);
 		ENDPOINTS_MAP.put("/sakai/sessions", this::reportActiveSessionCounts);
@@ -95,8 +114,29 @@ public class StatusServlet extends HttpServlet
 		ENDPOINTS_MAP.put("/sakai/tools", this::reportAllTools);
 		ENDPOINTS_MAP.put("/sakai/functions", this::reportAllFunctions);
 		ENDPOINTS_MAP.put("/sakai/cache", this::reportCacheList);
+		ENDPOINTS_MAP.put("/cluster/summary", this::reportClusterSummary);
+		ACTIONS_MAP.put("/system/jfr/start", this::startFlightRecording);
+		ACTIONS_MAP.put("/system/jfr/stop", this::stopFlightRecording);
+		ACTIONS_MAP.put("/system/jfr/dump", this::dumpFlightRecording);
 		
-		
+		heapHistogram = new HeapHistogram(mbs);
+		flightRecorder = new FlightRecorderControl(mbs);
+		metricStream = new MetricStream(this::collectMetrics);
+		metricStream.start();
+		threadPoolSaturation = new ThreadPoolSaturation(mbs,
+				Math.max(10, getConfigInt("status.threads.sample.interval", 100)),
+				1000L * Math.max(1, getConfigInt("status.threads.window", 60)));
+		threadPoolSaturation.start();
+		clusterFanOut = new ClusterFanOut(Math.max(100, getConfigInt("status.cluster.timeout", 3000)));
+		heapAfterGC = new HeapAfterGC();
+		heapAfterGC.start();
+		healthMonitor = new HealthMonitor(this::collectHealthMetrics,
+				Math.max(100, getConfigInt("status.health.interval", 2000)),
+				Math.max(1, getConfigInt("status.health.failures", 2)));
+		healthMonitor.addRule("heap", "heap.after-gc.percent", getConfigInt("status.health.heap.max-percent", 90));
+		healthMonitor.addRule("database", "database.waiters", getConfigInt("status.health.database.max-waiters", 5));
+		healthMonitor.addRule("threads", "threads.busy.percent", getConfigInt("status.health.threads.max-percent", 95));
+		healthMonitor.start();
 		
 		if (endpoints == null){
 			endpoints = new ArrayList<>(ENDPOINTS_MAP.keySet());
@@ -104,6 +144,57 @@ public class StatusServlet extends HttpServlet
 		}
 	}
 
+	public void destroy()
+	{
+		metricStream.stop();
+		threadPoolSaturation.stop();
+		clusterFanOut.stop();
+		healthMonitor.stop();
+		heapAfterGC.stop();
+	}
+
+	// Every MBean and Sakai component lookup goes through these, so the
+	// servlet can be run against stand-ins outside of Sakai (see the
+	// benchmark module).
+	protected MBeanServer findMBeanServer()
+	{
+		return ManagementFactory.getPlatformMBeanServer();
+	}
+
+	protected Object getComponent(String name)
+	{
+		return ComponentManager.get(name);
+	}
+
+	protected Set<String> getComponentNames()
+	{
+		// getRegisteredInterfaces() returns a raw Set
+		Set<String> names = new HashSet<>();
+		for(Object name : ComponentManager.getRegisteredInterfaces()) {
+			names.add(name.toString());
+		}
+		return names;
+	}
+
+	// reads optional tuning settings from sakai.properties
+	protected int getConfigInt(String name, int defaultValue)
+	{
+		ServerConfigurationService scs = (ServerConfigurationService)getComponent("org.sakaiproject.component.api.ServerConfigurationService");
+		if(scs == null) {
+			return defaultValue;
+		}
+		return scs.getInt(name, defaultValue);
+	}
+
+	protected String getConfigString(String name, String defaultValue)
+	{
+		ServerConfigurationService scs = (ServerConfigurationService)getComponent("org.sakaiproject.component.api.ServerConfigurationService");
+		if(scs == null) {
+			return defaultValue;
+		}
+		return scs.getString(name, defaultValue);
+	}
+
 	
 	 // "request.getPathInfo()" returns null because the servlet is mapped as "/" in the web.xml;
 	// getPathInfo only returns useful info if the request mapping ends in "/*" 
@@ -116,34 +207,98 @@ public class StatusServlet extends HttpServlet
 	public void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		String path = getPathInfo(request);
+		
+		// load balancers check this every few seconds, so it is answered
+		// from the precomputed status before anything else is done
+		if ("/health".equals(path)){
+			healthMonitor.respond(response);
+			return;
+		}
 				
 		if ("/".equals(path) || path == null){		
 			request.getRequestDispatcher("/endpoints.jsp").forward(request, response);
 			return;
 		}
 		
+		// the stream outlives this request, so it must not go through the
+		// try-with-resources below, which would close the writer
+		if ("/stream".equals(path)){
+			metricStream.subscribe(request, response);
+			return;
+		}
+		
+		if (ACTIONS_MAP.containsKey(path)){
+			response.setHeader("Allow", "POST");
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, path + " requires POST");
+			return;
+		}
+		
+		// refused before anything is written, so the client gets an error
+		// status rather than an empty response
+		if (path.startsWith("/cluster/") && isClusterDenied(path.substring("/cluster".length()))){
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, "Cannot fan out " + path.substring("/cluster".length()));
+			return;
+		}
+		
 		response.setContentType("text/plain");
 		try (PrintWriter pw = response.getWriter()){		
-			Consumer<PrintWriter> function = ENDPOINTS_MAP.get(path);
-			if (function != null){
-				function.accept(pw);
-			}
-			else if (path.startsWith("/sakai/tools/")){
-				reportToolDetails(path.replace("/sakai/tools/",""), pw);
+			try {
+				Consumer<PrintWriter> function = ENDPOINTS_MAP.get(path);
+				if (function != null){
+					function.accept(pw);
+				}
+				else if (path.startsWith("/sakai/tools/")){
+					reportToolDetails(path.replace("/sakai/tools/",""), pw);
+				}
+				else if(path.startsWith("/sakai/cache/")) {
+					reportCacheDetails(path.replace("/sakai/cache/",""), pw);
+				}
+				else if(path.startsWith("/cluster/")) {
+					reportCluster(path.substring("/cluster".length()), pw);
+				}
 			}
-			else if(path.startsWith("/sakai/cache/")) {
-				reportCacheDetails(path.replace("/sakai/cache/",""), pw);
+			catch(Throwable e) {
+				reportException(e, response, pw);
 			}
 		}
-		catch(Throwable e) {
-			if (e instanceof WrappedException){
-				e = e.getCause();
+
+	}
+
+	public void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String path = getPathInfo(request);
+		Consumer<PrintWriter> function = ACTIONS_MAP.get(path);
+		if (function == null){
+			response.setHeader("Allow", "GET");
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, path + " requires GET");
+			return;
+		}
+		
+		response.setContentType("text/plain");
+		try (PrintWriter pw = response.getWriter()){
+			try {
+				function.accept(pw);
 			}
-			System.err.println("Exception: "+e.getMessage());
-			e.printStackTrace();
-			response.getWriter().print("Exception: " + e.getMessage() + "\n");
-		}      
+			catch(Throwable e) {
+				reportException(e, response, pw);
+			}
+		}
+	}
 
+	// written through the still-open writer; if nothing has been sent yet,
+	// any partial output is dropped and the status is set to 500
+	private void reportException(Throwable e, HttpServletResponse response, PrintWriter pw)
+	{
+		if (e instanceof WrappedException){
+			e = e.getCause();
+		}
+		System.err.println("Exception: "+e.getMessage());
+		e.printStackTrace();
+		if (!response.isCommitted()){
+			response.resetBuffer();
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		pw.print("Exception: " + e.getMessage() + "\n");
 	}
 
 	protected Set<ObjectName> findMBeans(String searchString)
@@ -171,6 +326,11 @@ public class StatusServlet extends HttpServlet
 		}
 	}
 
+	protected void reportThreadPoolSaturation(PrintWriter pw) 
+	{
+		threadPoolSaturation.report(pw);
+	}
+
 	protected void reportThreadGroups(PrintWriter pw) 
 	{
 		printThreadGroupDetails(findSystemThreadGroup(), "", pw);
@@ -414,49 +574,122 @@ public class StatusServlet extends HttpServlet
 		pw.print(Runtime.getRuntime().maxMemory() + "\n");
 	}
 
+	protected void reportHeapHistogram(PrintWriter pw) 
+	{
+		try {
+			heapHistogram.report(pw);
+		}
+		catch (Exception e){
+			throw new WrappedException(e);
+		}
+	}
+
+	protected void reportFlightRecordings(PrintWriter pw) 
+	{
+		try {
+			flightRecorder.reportStatus(pw);
+		}
+		catch (Exception e){
+			throw new WrappedException(e);
+		}
+	}
+
+	protected void startFlightRecording(PrintWriter pw) 
+	{
+		try {
+			flightRecorder.start(pw);
+		}
+		catch (Exception e){
+			throw new WrappedException(e);
+		}
+	}
+
+	protected void stopFlightRecording(PrintWriter pw) 
+	{
+		try {
+			flightRecorder.stop(pw);
+		}
+		catch (Exception e){
+			throw new WrappedException(e);
+		}
+	}
+
+	protected void dumpFlightRecording(PrintWriter pw) 
+	{
+		try {
+			flightRecorder.dump(pw);
+		}
+		catch (Exception e){
+			throw new WrappedException(e);
+		}
+	}
+
+	protected void reportFlightRecordingSummary(PrintWriter pw) 
+	{
+		try {
+			flightRecorder.summarize(pw);
+		}
+		catch (Exception e){
+			throw new WrappedException(e);
+		}
+	}
+
+	protected void reportMetrics(PrintWriter pw) 
+	{
+		Map<String,Long> metrics = new TreeMap<>();
+		collectMetrics(metrics);
+		for(Map.Entry<String,Long> entry : metrics.entrySet()) {
+			pw.print(entry.getKey() + "=" + entry.getValue() + "\n");
+		}
+	}
+
 	protected void reportSakaiDatabaseStatus(PrintWriter pw) 
 	{
 		
-		Object ds = ComponentManager.get("javax.sql.DataSource");
+		Object ds = getComponent("javax.sql.DataSource");
 		if(ds == null) {
 			throw new RuntimeException("No data source found.");
 		}
-		int activeConnections=-1;
-		int idleConections=-1; 
+		int[] connections = getDatabaseConnectionCounts(ds);
+		if(connections == null) {
+			pw.print("Unsupported datasourse implementation: "+ds.getClass()+"\n");
+			return;
+		}
+		pw.print(connections[0] + "," + connections[1] + "\n");
+	}
+
+	// returns {active, idle}, or null if the data source type is not supported
+	protected int[] getDatabaseConnectionCounts(Object ds)
+	{
 		try {
 			if (ds instanceof BasicDataSource) {
 				BasicDataSource db = (BasicDataSource) ds;
-				activeConnections = db.getNumActive();
-				idleConections = db.getNumIdle();
-	
+				return new int[] { db.getNumActive(), db.getNumIdle() };
 			}
 			else if (ds instanceof HikariDataSource) {
-				@SuppressWarnings("resource")
-				HikariDataSource db = (HikariDataSource) ds;			
-				//db.setRegisterMbeans(true);	
-				ObjectName poolName = new ObjectName("com.zaxxer.hikari:type=Pool ("+db.getPoolName()+")");
-				HikariPoolMXBean poolProxy = JMX.newMXBeanProxy(mbs, poolName, HikariPoolMXBean.class);
-				activeConnections = poolProxy.getActiveConnections();
-				idleConections = poolProxy.getIdleConnections();
-	
-			}
-			else {
-				pw.print("Unsupported datasourse implementation: "+ds.getClass()+"\n");
-				return;
+				HikariPoolMXBean poolProxy = getHikariPool((HikariDataSource) ds);
+				return new int[] { poolProxy.getActiveConnections(), poolProxy.getIdleConnections() };
 			}
-			pw.print(activeConnections + "," + idleConections + "\n");
+			return null;
 		}
 		catch (Exception e){
 			throw new WrappedException(e);
 		}
 	}
 
+	protected HikariPoolMXBean getHikariPool(HikariDataSource db) throws Exception
+	{
+		//db.setRegisterMbeans(true);
+		ObjectName poolName = new ObjectName("com.zaxxer.hikari:type=Pool ("+db.getPoolName()+")");
+		return JMX.newMXBeanProxy(mbs, poolName, HikariPoolMXBean.class);
+	}
+
 	protected void reportSakaiBeans(PrintWriter pw) 
 	{
 
 
 		SortedSet<String> sortedBeanNames = new TreeSet<String>();
-		for(Object beanName : ComponentManager.getRegisteredInterfaces()) {
+		for(Object beanName : getComponentNames()) {
 			sortedBeanNames.add(beanName.toString());
 		}
 		for(Object beanName : sortedBeanNames) {
@@ -466,7 +699,7 @@ public class StatusServlet extends HttpServlet
 
 	protected void reportActiveSessionCounts(PrintWriter pw) 
 	{
-		SessionManager sm = (SessionManager)ComponentManager.get("org.sakaiproject.tool.api.SessionManager");
+		SessionManager sm = (SessionManager)getComponent("org.sakaiproject.tool.api.SessionManager");
 		if(sm == null) {
 			throw new RuntimeException("Could not get SessionManager bean.");
 		}
@@ -506,7 +739,7 @@ public class StatusServlet extends HttpServlet
 	protected void reportUsersByServer(PrintWriter pw) 
 	{
 
-		UserDirectoryService uds = (UserDirectoryService)ComponentManager.get("org.sakaiproject.user.api.UserDirectoryService");
+		UserDirectoryService uds = (UserDirectoryService)getComponent("org.sakaiproject.user.api.UserDirectoryService");
 		if(uds == null) {
 			throw new RuntimeException("Could not get UserDirectoryService bean.");
 		}
@@ -534,7 +767,7 @@ public class StatusServlet extends HttpServlet
 	{
 
 
-		UserDirectoryService uds = (UserDirectoryService)ComponentManager.get("org.sakaiproject.user.api.UserDirectoryService");
+		UserDirectoryService uds = (UserDirectoryService)getComponent("org.sakaiproject.user.api.UserDirectoryService");
 		if(uds == null) {
 			throw new RuntimeException("Could not get UserDirectoryService bean.");
 		}
@@ -581,7 +814,7 @@ public class StatusServlet extends HttpServlet
 
 	protected void reportSakaiProperties(PrintWriter pw) 
 	{
-		SakaiProperties sp = (SakaiProperties)ComponentManager.get("org.sakaiproject.component.SakaiProperties");
+		SakaiProperties sp = (SakaiProperties)getComponent("org.sakaiproject.component.SakaiProperties");
 		if(sp == null) {
 			throw new RuntimeException("Could not get SakaiProperties bean.");
 		}
@@ -605,7 +838,7 @@ public class StatusServlet extends HttpServlet
 
 	protected void reportAllTools(PrintWriter pw) 
 	{
-		ToolManager tm = (ToolManager)ComponentManager.get("org.sakaiproject.tool.api.ActiveToolManager");
+		ToolManager tm = (ToolManager)getComponent("org.sakaiproject.tool.api.ActiveToolManager");
 		if(tm == null) {
 			throw new RuntimeException("Could not get ToolManager bean.");
 		}
@@ -625,7 +858,7 @@ public class StatusServlet extends HttpServlet
 	{
 
 
-		ToolManager tm = (ToolManager)ComponentManager.get("org.sakaiproject.tool.api.ActiveToolManager");
+		ToolManager tm = (ToolManager)getComponent("org.sakaiproject.tool.api.ActiveToolManager");
 		if(tm == null) {
 			throw new RuntimeException("Could not get ToolManager bean.");
 		}
@@ -710,7 +943,7 @@ public class StatusServlet extends HttpServlet
 	{
 
 
-		FunctionManager fm = (FunctionManager)ComponentManager.get("org.sakaiproject.authz.api.FunctionManager");
+		FunctionManager fm = (FunctionManager)getComponent("org.sakaiproject.authz.api.FunctionManager");
 		if(fm == null) {
 			throw new RuntimeException("Could not get FunctionManager bean.");
 		}
@@ -730,7 +963,7 @@ public class StatusServlet extends HttpServlet
 	{
 
 
-		CacheManager manager = (CacheManager)ComponentManager.get("org.sakaiproject.memory.api.MemoryService.cacheManager");
+		CacheManager manager = (CacheManager)getComponent("org.sakaiproject.memory.api.MemoryService.cacheManager");
 
 		String[] cacheNames = manager.getCacheNames();
 		Arrays.sort(cacheNames);
@@ -742,7 +975,7 @@ public class StatusServlet extends HttpServlet
 	protected void reportCacheDetails(String cacheName, PrintWriter pw) 
 	{        
 
-		CacheManager manager = (CacheManager)ComponentManager.get("org.sakaiproject.memory.api.MemoryService.cacheManager");
+		CacheManager manager = (CacheManager)getComponent("org.sakaiproject.memory.api.MemoryService.cacheManager");
 
 		if(manager == null) {
 			throw new RuntimeException("Could not get CacheManager bean.");
@@ -795,8 +1028,157 @@ public class StatusServlet extends HttpServlet
 	
 
 
-	private static final Map<String,Collection<UsageSession>>  getSessionsByServer(){
-		UsageSessionService uss = (UsageSessionService)ComponentManager.get("org.sakaiproject.event.api.UsageSessionService");
+	// Gathers the values pushed by "/stream". Only cheap, in-memory lookups
+	// belong here since it may run several times a second; groups whose
+	// components are unavailable are left out rather than failing the sample.
+	protected void collectMetrics(Map<String,Long> metrics)
+	{
+		Runtime runtime = Runtime.getRuntime();
+		metrics.put("memory.free", runtime.freeMemory());
+		metrics.put("memory.total", runtime.totalMemory());
+		metrics.put("memory.max", runtime.maxMemory());
+
+		try {
+			Object ds = getComponent("javax.sql.DataSource");
+			int[] connections = (ds == null) ? null : getDatabaseConnectionCounts(ds);
+			if(connections != null) {
+				metrics.put("database.active", (long) connections[0]);
+				metrics.put("database.idle", (long) connections[1]);
+			}
+		}
+		catch (Exception e) {
+			// pool not available
+		}
+
+		try {
+			for(ObjectName tpName : findMBeans("*:type=ThreadPool,*")) {
+				String prefix = "threads." + mbs.getAttribute(tpName, "name");
+				metrics.put(prefix + ".max", ((Number) mbs.getAttribute(tpName, "maxThreads")).longValue());
+				metrics.put(prefix + ".current", ((Number) mbs.getAttribute(tpName, "currentThreadCount")).longValue());
+				metrics.put(prefix + ".busy", ((Number) mbs.getAttribute(tpName, "currentThreadsBusy")).longValue());
+			}
+		}
+		catch (Exception e) {
+			// connector went away mid-sample
+		}
+
+		SessionManager sm = (SessionManager)getComponent("org.sakaiproject.tool.api.SessionManager");
+		if(sm != null) {
+			metrics.put("sessions.active.3600", (long) sm.getActiveUserCount(3600));
+			metrics.put("sessions.active.1800", (long) sm.getActiveUserCount(1800));
+			metrics.put("sessions.active.900", (long) sm.getActiveUserCount(900));
+			metrics.put("sessions.active.300", (long) sm.getActiveUserCount(300));
+		}
+
+		CacheManager manager = (CacheManager)getComponent("org.sakaiproject.memory.api.MemoryService.cacheManager");
+		if(manager != null) {
+			for(String cacheName : manager.getCacheNames()) {
+				Cache cache = manager.getCache(cacheName);
+				if(cache == null) {
+					continue;
+				}
+				net.sf.ehcache.Statistics stats = cache.getStatistics();
+				String prefix = "cache." + cacheName;
+				metrics.put(prefix + ".objects", stats.getObjectCount());
+				metrics.put(prefix + ".hits", stats.getCacheHits());
+				metrics.put(prefix + ".misses", stats.getCacheMisses());
+				metrics.put(prefix + ".evictions", stats.getEvictionCount());
+			}
+		}
+	}
+
+	protected void reportClusterSummary(PrintWriter pw) 
+	{
+		clusterFanOut.reportSummary(getClusterPeers(), pw);
+	}
+
+	// Endpoints that change state or force a full GC on the node that
+	// serves them; fanning one out would do it to every node at once.
+	private static final Set<String> CLUSTER_DENIED = new HashSet<>(Arrays.asList(
+			"/stream", "/system/heap/histogram", "/system/jfr/start", "/system/jfr/stop", "/system/jfr/dump"));
+
+	protected boolean isClusterDenied(String endpoint)
+	{
+		return endpoint.startsWith("/cluster/") || CLUSTER_DENIED.contains(endpoint);
+	}
+
+	protected void reportCluster(String endpoint, PrintWriter pw) 
+	{
+		if(isClusterDenied(endpoint)) {
+			throw new RuntimeException("Cannot fan out " + endpoint);
+		}
+		clusterFanOut.report(getClusterPeers(), endpoint, pw);
+	}
+
+	// Returns node name -> sakai-status base URL. Peers come from the
+	// "status.cluster.peers" list if it is set, as either "name=url" or a
+	// bare URL, which is its own name; otherwise from the servers that
+	// currently have open sessions, mapped to URLs with
+	// "status.cluster.peer.url", in which "{server}" is the server name.
+	protected Map<String,String> getClusterPeers()
+	{
+		String configured = getConfigString("status.cluster.peers", "");
+		if(configured.trim().length() > 0) {
+			Map<String,String> peers = new LinkedHashMap<>();
+			for(String entry : configured.split(",")) {
+				String name = null;
+				String url = entry.trim();
+				int split = url.indexOf('=');
+				if(split > 0 && url.substring(0, split).indexOf('/') < 0) {
+					name = url.substring(0, split).trim();
+					url = url.substring(split + 1).trim();
+				}
+				url = url.replaceAll("/+$", "");
+				if(url.length() == 0) {
+					continue;
+				}
+				if(name == null) {
+					name = url;
+				}
+				if(peers.put(name, url) != null) {
+					throw new RuntimeException("Duplicate node in status.cluster.peers: " + name);
+				}
+			}
+			return peers;
+		}
+
+		Map<String,String> peers = new TreeMap<>();
+		String pattern = getConfigString("status.cluster.peer.url", "http://{server}:8080/sakai-status");
+		for(String key : getSessionsByServer().keySet()) {
+			String serverName = key.replaceAll("-[0-9]+$", "");
+			peers.put(serverName, pattern.replace("{server}", serverName));
+		}
+		return peers;
+	}
+
+	// Gathers the values the /health rules are checked against. This runs on
+	// the health monitor's thread, never on a request. Values that cannot be
+	// measured on this node are left out, which the rules treat as passing.
+	protected void collectHealthMetrics(Map<String,Long> metrics)
+	{
+		long heapPercent = heapAfterGC.getPercent();
+		if(heapPercent >= 0) {
+			metrics.put("heap.after-gc.percent", heapPercent);
+		}
+
+		try {
+			Object ds = getComponent("javax.sql.DataSource");
+			if(ds instanceof HikariDataSource) {
+				metrics.put("database.waiters", (long) getHikariPool((HikariDataSource) ds).getThreadsAwaitingConnection());
+			}
+		}
+		catch (Exception e) {
+			// pool MBean not registered
+		}
+
+		int utilization = threadPoolSaturation.getMaxUtilization();
+		if(utilization >= 0) {
+			metrics.put("threads.busy.percent", (long) utilization);
+		}
+	}
+
+	private Map<String,Collection<UsageSession>>  getSessionsByServer(){
+		UsageSessionService uss = (UsageSessionService)getComponent("org.sakaiproject.event.api.UsageSessionService");
 		if(uss == null) {
 			throw new RuntimeException("Could not get UsageSessionService bean.");
 		}
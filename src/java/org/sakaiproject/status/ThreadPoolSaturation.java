@@ -0,0 +1,257 @@
+// ThreadPoolSaturation.java
+//   Samples connector thread pools at high frequency and keeps per-window
+//   utilization histograms
+//
+// https://github.com/daveadams/sakai-status
+//
+// This software is public domain. See LICENSE for more information.
+//
+package org.sakaiproject.status;
+
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// A poll every 30 seconds sees one instant in every 30,000 milliseconds and
+// misses the bursts where every thread is busy and requests queue. This
+// reads each ThreadPool MBean every few tens of milliseconds and buckets the
+// busy/max ratio into a 101-slot histogram per window. Memory is fixed: each
+// pool keeps WINDOW_COUNT windows in a ring, reused as time moves on.
+class ThreadPoolSaturation
+{
+	static final int WINDOW_COUNT = 15;
+	static final long REFRESH_INTERVAL = 60000;
+
+	// Tomcat 8.0 calls the accept queue length "backlog"; 8.5 renamed it
+	// "acceptCount" and keeps "backlog" as an alias. Attributes a pool does
+	// not have are left out of getAttributes' result.
+	private static final String[] ATTRIBUTES = {
+		"name", "maxThreads", "currentThreadsBusy", "connectionCount", "acceptCount", "backlog"
+	};
+
+	private final MBeanServer mbs;
+	private final long sampleInterval;
+	private final long windowLength;
+	private final Map<ObjectName,Pool> pools = new ConcurrentHashMap<>();
+	private Set<ObjectName> poolNames;
+	private long lastRefresh = 0;
+	private ScheduledExecutorService scheduler;
+
+	ThreadPoolSaturation(MBeanServer mbs, long sampleInterval, long windowLength)
+	{
+		this.mbs = mbs;
+		this.sampleInterval = sampleInterval;
+		this.windowLength = windowLength;
+	}
+
+	void start()
+	{
+		scheduler = DaemonThreads.newScheduler("sakai-status-threadpool-sampler");
+		scheduler.scheduleAtFixedRate(this::sample, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+	}
+
+	void stop()
+	{
+		DaemonThreads.shutdown(scheduler);
+	}
+
+	// the highest busy/max percentage among pools in their latest sample,
+	// or -1 if nothing has been sampled
+	int getMaxUtilization()
+	{
+		int utilization = -1;
+		for(Pool pool : pools.values()) {
+			synchronized(pool) {
+				if(pool.latestMax > 0) {
+					utilization = Math.max(utilization, (int) ((100L * pool.latestBusy) / pool.latestMax));
+				}
+			}
+		}
+		return utilization;
+	}
+
+	private void sample()
+	{
+		long now = System.currentTimeMillis();
+		try {
+			// querying is much more expensive than reading, and connectors
+			// rarely come and go
+			if(poolNames == null || now - lastRefresh >= REFRESH_INTERVAL) {
+				poolNames = mbs.queryNames(new ObjectName("*:type=ThreadPool,*"), null);
+				pools.keySet().retainAll(poolNames);
+				lastRefresh = now;
+			}
+
+			for(ObjectName poolName : poolNames) {
+				Pool pool = pools.computeIfAbsent(poolName, k -> new Pool());
+				int busy = -1;
+				int max = -1;
+				int connections = -1;
+				try {
+					for(Attribute attribute : mbs.getAttributes(poolName, ATTRIBUTES).asList()) {
+						Object value = attribute.getValue();
+						switch(attribute.getName()) {
+						case "name":
+							pool.name = String.valueOf(value);
+							break;
+						case "maxThreads":
+							max = ((Number) value).intValue();
+							break;
+						case "currentThreadsBusy":
+							busy = ((Number) value).intValue();
+							break;
+						case "connectionCount":
+							connections = ((Number) value).intValue();
+							break;
+						case "acceptCount":
+						case "backlog":
+							pool.acceptCount = ((Number) value).intValue();
+							break;
+						default:
+							break;
+						}
+					}
+				}
+				catch(Exception e) {
+					// connector stopped between refreshes
+					continue;
+				}
+				// pools backed by a shared Executor report negative values
+				if(max > 0 && busy >= 0) {
+					pool.record(now, busy, max, connections);
+				}
+			}
+		}
+		catch(Throwable e) {
+			System.err.println("Exception sampling thread pools: " + e.getMessage());
+		}
+	}
+
+	// one line per pool per window, newest first:
+	// name,window-start,samples,p50,p95,p99,max,time-at-max-ms,max-busy,max-threads,max-connections,accept-count
+	void report(PrintWriter pw)
+	{
+		List<Pool> sorted = new ArrayList<>(pools.values());
+		sorted.sort((a, b) -> String.valueOf(a.name).compareTo(String.valueOf(b.name)));
+		for(Pool pool : sorted) {
+			if(pool.name == null) {
+				continue;
+			}
+			synchronized(pool) {
+				for(int i = 0; i < WINDOW_COUNT; i++) {
+					Window window = pool.windows[Math.floorMod(pool.current - i, WINDOW_COUNT)];
+					if(window.samples == 0) {
+						continue;
+					}
+					pw.print(pool.name + ",");
+					pw.print(Instant.ofEpochMilli(window.start) + ",");
+					pw.print(window.samples + ",");
+					pw.print(window.percentile(0.50) + ",");
+					pw.print(window.percentile(0.95) + ",");
+					pw.print(window.percentile(0.99) + ",");
+					pw.print(window.percentile(1.0) + ",");
+					pw.print((window.samplesAtMax * sampleInterval) + ",");
+					pw.print(window.maxBusy + ",");
+					pw.print(window.maxThreads + ",");
+					pw.print(window.maxConnections + ",");
+					pw.print(pool.acceptCount + "\n");
+				}
+			}
+		}
+	}
+
+	private class Pool
+	{
+		final Window[] windows = new Window[WINDOW_COUNT];
+		int current = 0;
+		String name;
+		int acceptCount = -1;
+		int latestBusy = -1;
+		int latestMax = -1;
+
+		Pool()
+		{
+			for(int i = 0; i < WINDOW_COUNT; i++) {
+				windows[i] = new Window();
+			}
+		}
+
+		synchronized void record(long now, int busy, int max, int connections)
+		{
+			latestBusy = busy;
+			latestMax = max;
+
+			Window window = windows[current];
+			if(window.samples == 0) {
+				window.reset(now);
+			}
+			else if(now - window.start >= windowLength) {
+				current = (current + 1) % WINDOW_COUNT;
+				window = windows[current];
+				window.reset(now);
+			}
+			window.add(busy, max, connections);
+		}
+	}
+
+	private static class Window
+	{
+		final int[] histogram = new int[101];
+		long start;
+		int samples;
+		int samplesAtMax;
+		int maxBusy;
+		int maxThreads;
+		int maxConnections;
+
+		void reset(long start)
+		{
+			Arrays.fill(histogram, 0);
+			this.start = start;
+			samples = 0;
+			samplesAtMax = 0;
+			maxBusy = 0;
+			maxThreads = 0;
+			maxConnections = -1;
+		}
+
+		void add(int busy, int max, int connections)
+		{
+			int percent = (int) Math.min(100, (100L * busy) / max);
+			histogram[percent]++;
+			samples++;
+			if(busy >= max) {
+				samplesAtMax++;
+			}
+			maxBusy = Math.max(maxBusy, busy);
+			maxThreads = Math.max(maxThreads, max);
+			maxConnections = Math.max(maxConnections, connections);
+		}
+
+		// utilization percentage at or below which the given fraction of
+		// this window's samples fall
+		int percentile(double fraction)
+		{
+			long target = (long) Math.ceil(fraction * samples);
+			long seen = 0;
+			for(int percent = 0; percent < histogram.length; percent++) {
+				seen += histogram[percent];
+				if(seen >= target && seen > 0) {
+					return percent;
+				}
+			}
+			return 100;
+		}
+	}
+}
@@ -21,6 +21,8 @@
 	
 	<li><a target="_blank" href="<%=CTX%>/sakai/tools/TOOL-ID">/sakai/tools/TOOL-ID</a></li>
 	<li><a target="_blank" href="<%=CTX%>/sakai/caches/CACHE-NAME">/sakai/caches/CACHE-NAME</a></li>				
+	<li><a target="_blank" href="<%=CTX%>/cluster/ENDPOINT">/cluster/ENDPOINT</a></li>
+	<li><a target="_blank" href="<%=CTX%>/stream?interval=2000">/stream?interval=2000</a></li>
 
 </ul>
 </body>